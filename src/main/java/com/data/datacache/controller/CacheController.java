@@ -1,18 +1,26 @@
 package com.data.datacache.controller;
 
+import com.data.datacache.exception.RepositoryUnavailableException;
 import com.data.datacache.model.CacheItem;
+import com.data.datacache.model.CacheLookup;
+import com.data.datacache.service.CacheChangeFeed;
 import com.data.datacache.service.CacheManagerService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 
 import javax.validation.Valid;
+import java.util.Iterator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Tag(name = "Cache Manager", description = "APIs for cache operations")
 @RestController
@@ -21,11 +29,22 @@ public class CacheController {
 
     private static final Logger logger = LoggerFactory.getLogger(CacheController.class);
 
+    static final String NDJSON_VALUE = "application/x-ndjson";
+    // Sequence of the last change visible before an export started; follow the change feed from here.
+    static final String SEQUENCE_HEADER = "X-Cache-Sequence";
+    // Seconds since a stale value served during a database outage was last known to be current.
+    static final String STALE_AGE_HEADER = "X-Cache-Stale-Age";
+
     private final CacheManagerService cacheManagerService;
+    private final CacheChangeFeed cacheChangeFeed;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public CacheController(CacheManagerService cacheManagerService) {
+    public CacheController(CacheManagerService cacheManagerService, CacheChangeFeed cacheChangeFeed,
+                           ObjectMapper objectMapper) {
         this.cacheManagerService = cacheManagerService;
+        this.cacheChangeFeed = cacheChangeFeed;
+        this.objectMapper = objectMapper;
     }
 
     @Operation(summary = "Add a CacheItem")
@@ -38,6 +57,10 @@ public class CacheController {
         } catch (IllegalArgumentException e) {
             logger.warn("Bad request for add: {}", e.getMessage());
             return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (RepositoryUnavailableException e) {
+            logger.warn("Database unavailable during add: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body("Service unavailable: " + e.getMessage());
         } catch (Exception e) {
             logger.error("Server error during add: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -50,11 +73,20 @@ public class CacheController {
     public ResponseEntity<?> get(@RequestBody CacheItem item) {
         try {
             logger.info("Received get request for: {}", item);
-            CacheItem result = cacheManagerService.get(item);
-            return ResponseEntity.ok(result);
+            CacheLookup result = cacheManagerService.lookup(item);
+            if (result.isStale()) {
+                return ResponseEntity.ok()
+                        .header(STALE_AGE_HEADER, String.valueOf(result.getStaleAgeSeconds()))
+                        .body(result.getItem());
+            }
+            return ResponseEntity.ok(result.getItem());
         } catch (IllegalArgumentException e) {
             logger.warn("Bad request for get: {}", e.getMessage());
             return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (RepositoryUnavailableException e) {
+            logger.warn("Database unavailable during get: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body("Service unavailable: " + e.getMessage());
         } catch (Exception e) {
             logger.error("Server error during get: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -72,6 +104,10 @@ public class CacheController {
         } catch (IllegalArgumentException e) {
             logger.warn("Bad request for remove: {}", e.getMessage());
             return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (RepositoryUnavailableException e) {
+            logger.warn("Database unavailable during remove: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body("Service unavailable: " + e.getMessage());
         } catch (Exception e) {
             logger.error("Server error during remove: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -86,6 +122,10 @@ public class CacheController {
             logger.info("Received removeAll request");
             cacheManagerService.removeAll();
             return ResponseEntity.ok("All cache items removed from cache and database");
+        } catch (RepositoryUnavailableException e) {
+            logger.warn("Database unavailable during removeAll: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body("Service unavailable: " + e.getMessage());
         } catch (Exception e) {
             logger.error("Server error during removeAll: {}", e.getMessage());
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
@@ -106,4 +146,35 @@ public class CacheController {
                     .body("An error occurred: " + e.getMessage());
         }
     }
+
+    @Operation(summary = "Export cache contents as newline-delimited JSON")
+    @GetMapping(value = "/export", produces = NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> export() {
+        logger.info("Received export request");
+        long sequence = cacheChangeFeed.currentSequence();
+        Iterator<CacheItem> entries = cacheManagerService.entries();
+        // Items are written one at a time so the whole cache is never buffered in memory.
+        StreamingResponseBody body = out -> {
+            while (entries.hasNext()) {
+                out.write(objectMapper.writeValueAsBytes(entries.next()));
+                out.write('\n');
+            }
+            out.flush();
+        };
+        return ResponseEntity.ok()
+                .header(SEQUENCE_HEADER, String.valueOf(sequence))
+                .contentType(MediaType.parseMediaType(NDJSON_VALUE))
+                .body(body);
+    }
+
+    @Operation(summary = "Follow cache changes as server-sent events")
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter changes(@RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId,
+                              @RequestParam(value = "since", required = false) Long since) {
+        // A reconnecting EventSource repeats the original since but also sends the last event it
+        // received, which is further along, so Last-Event-ID wins.
+        Long from = lastEventId != null ? lastEventId : since;
+        logger.info("Received change feed subscription from sequence {}", from);
+        return cacheChangeFeed.subscribe(from);
+    }
 }
@@ -19,6 +19,20 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
     }
 
+    // Handles RepositoryUnavailableException and returns a 503 Service Unavailable.
+    @ExceptionHandler(RepositoryUnavailableException.class)
+    public ResponseEntity<String> handleRepositoryUnavailable(RepositoryUnavailableException ex) {
+        logger.warn("RepositoryUnavailableException caught: {}", ex.getMessage());
+        return new ResponseEntity<>("Service unavailable: " + ex.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    // Handles TooManySubscribersException and returns a 503 Service Unavailable.
+    @ExceptionHandler(TooManySubscribersException.class)
+    public ResponseEntity<String> handleTooManySubscribers(TooManySubscribersException ex) {
+        logger.warn("TooManySubscribersException caught: {}", ex.getMessage());
+        return new ResponseEntity<>("Service unavailable: " + ex.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
     // Handles all other exceptions and returns a 500 Internal Server Error.
     @ExceptionHandler(Exception.class)
     public ResponseEntity<String> handleException(Exception ex) {
@@ -0,0 +1,13 @@
+package com.data.datacache.exception;
+
+// Thrown when a repository call is rejected, times out or fails, or the circuit breaker is open.
+public class RepositoryUnavailableException extends RuntimeException {
+
+    public RepositoryUnavailableException(String message) {
+        super(message);
+    }
+
+    public RepositoryUnavailableException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,9 @@
+package com.data.datacache.exception;
+
+// Thrown when the change feed already has the maximum number of subscribers.
+public class TooManySubscribersException extends RuntimeException {
+
+    public TooManySubscribersException(String message) {
+        super(message);
+    }
+}
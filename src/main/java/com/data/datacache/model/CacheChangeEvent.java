@@ -0,0 +1,58 @@
+package com.data.datacache.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "A single mutation of the cache, ordered by sequence number")
+public class CacheChangeEvent {
+
+    // Kinds of mutation published on the change feed.
+    public enum Type {
+        ADD,
+        EVICT,
+        REMOVE,
+        CLEAR
+    }
+
+    @Schema(description = "Monotonically increasing sequence number of the change", example = "42")
+    private long sequence;
+
+    @Schema(description = "Kind of change", example = "ADD")
+    private Type type;
+
+    @Schema(description = "Affected cache item; absent for CLEAR")
+    private CacheItem item;
+
+    public CacheChangeEvent() {
+    }
+
+    public CacheChangeEvent(long sequence, Type type, CacheItem item) {
+        this.sequence = sequence;
+        this.type = type;
+        this.item = item;
+    }
+
+    // Getters and Setters
+    public long getSequence() {
+        return sequence;
+    }
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+    public Type getType() {
+        return type;
+    }
+    public void setType(Type type) {
+        this.type = type;
+    }
+    public CacheItem getItem() {
+        return item;
+    }
+    public void setItem(CacheItem item) {
+        this.item = item;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheChangeEvent{sequence=" + sequence + ", type=" + type + ", item=" + item + "}";
+    }
+}
@@ -0,0 +1,40 @@
+package com.data.datacache.model;
+
+// Result of a cache lookup; stale when the last known value was served because the database was unavailable.
+public class CacheLookup {
+
+    private final CacheItem item;
+    private final boolean stale;
+    private final long staleAgeSeconds;
+
+    private CacheLookup(CacheItem item, boolean stale, long staleAgeSeconds) {
+        this.item = item;
+        this.stale = stale;
+        this.staleAgeSeconds = staleAgeSeconds;
+    }
+
+    public static CacheLookup fresh(CacheItem item) {
+        return new CacheLookup(item, false, 0);
+    }
+
+    public static CacheLookup stale(CacheItem item, long staleAgeSeconds) {
+        return new CacheLookup(item, true, staleAgeSeconds);
+    }
+
+    // Getters
+    public CacheItem getItem() {
+        return item;
+    }
+    public boolean isStale() {
+        return stale;
+    }
+    // Seconds since the served value was last known to be current.
+    public long getStaleAgeSeconds() {
+        return staleAgeSeconds;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheLookup{item=" + item + ", stale=" + stale + ", staleAgeSeconds=" + staleAgeSeconds + "}";
+    }
+}
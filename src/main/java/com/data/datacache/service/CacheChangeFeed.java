@@ -0,0 +1,263 @@
+package com.data.datacache.service;
+
+import com.data.datacache.exception.TooManySubscribersException;
+import com.data.datacache.model.CacheChangeEvent;
+import com.data.datacache.model.CacheItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Service
+public class CacheChangeFeed {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheChangeFeed.class);
+
+    static final int DEFAULT_REPLAY_CAPACITY = 1000;
+    static final int DEFAULT_SUBSCRIBER_QUEUE_CAPACITY = 1000;
+    static final long DEFAULT_HEARTBEAT_INTERVAL_MS = 15000;
+    static final int DEFAULT_MAX_SUBSCRIBERS = 100;
+
+    // Subscribers follow the feed until they disconnect; heartbeats detect clients that went away.
+    private static final long NO_TIMEOUT = 0L;
+
+    private final int replayCapacity;
+    private final int subscriberQueueCapacity;
+    private final int maxSubscribers;
+    // Sequence, replay history and fan-out to subscriber queues, guarded by feedLock so a
+    // subscriber that replays history neither misses nor duplicates a live event.
+    private final Object feedLock = new Object();
+    private long sequence;
+    private final ArrayDeque<CacheChangeEvent> history = new ArrayDeque<>();
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    // Each subscriber drains its own queue on this pool, so a slow client only delays itself. The pool
+    // has one thread per allowed subscriber; drains beyond that wait for a thread instead of adding one.
+    private final ThreadPoolExecutor dispatcher;
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cache-change-feed-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Autowired
+    public CacheChangeFeed(@Value("${cache.changes.replay-capacity:" + DEFAULT_REPLAY_CAPACITY + "}") int replayCapacity,
+                           @Value("${cache.changes.subscriber-queue-capacity:" + DEFAULT_SUBSCRIBER_QUEUE_CAPACITY + "}") int subscriberQueueCapacity,
+                           @Value("${cache.changes.heartbeat-interval-ms:" + DEFAULT_HEARTBEAT_INTERVAL_MS + "}") long heartbeatIntervalMs,
+                           @Value("${cache.changes.max-subscribers:" + DEFAULT_MAX_SUBSCRIBERS + "}") int maxSubscribers) {
+        this.replayCapacity = replayCapacity;
+        this.subscriberQueueCapacity = subscriberQueueCapacity;
+        this.maxSubscribers = maxSubscribers;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.dispatcher = new ThreadPoolExecutor(maxSubscribers, maxSubscribers, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "cache-change-feed-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.dispatcher.allowCoreThreadTimeOut(true);
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeats, heartbeatIntervalMs, heartbeatIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    // Assigns the next sequence number to a change, records it for replay and queues it for every subscriber.
+    public CacheChangeEvent publish(CacheChangeEvent.Type type, CacheItem item) {
+        CacheChangeEvent event;
+        List<Subscriber> overflowed = new ArrayList<>();
+        synchronized (feedLock) {
+            event = new CacheChangeEvent(++sequence, type, item);
+            history.addLast(event);
+            if (history.size() > replayCapacity) {
+                history.removeFirst();
+            }
+            for (Subscriber subscriber : subscribers) {
+                if (!subscriber.offer(toSse(event))) {
+                    overflowed.add(subscriber);
+                }
+            }
+        }
+        for (Subscriber subscriber : overflowed) {
+            // The client reconnects with Last-Event-ID and catches up from the replay history.
+            logger.warn("Dropping change feed subscriber that fell {} events behind", subscriberQueueCapacity);
+            drop(subscriber, null);
+        }
+        return event;
+    }
+
+    // Sequence number of the most recently published change (0 if none yet).
+    public long currentSequence() {
+        synchronized (feedLock) {
+            return sequence;
+        }
+    }
+
+    // Registers a new SSE subscriber that first receives the retained changes after the given
+    // sequence (if any), then every change published from now on. Refused once maxSubscribers are connected.
+    public SseEmitter subscribe(Long since) {
+        Subscriber subscriber = new Subscriber(createEmitter());
+        boolean overflowed = false;
+        synchronized (feedLock) {
+            if (subscribers.size() >= maxSubscribers) {
+                throw new TooManySubscribersException("Change feed already has " + maxSubscribers
+                        + " subscribers; try again later");
+            }
+            if (since != null) {
+                long oldestRetained = history.isEmpty() ? sequence + 1 : history.peekFirst().getSequence();
+                if (since > sequence) {
+                    throw new IllegalArgumentException("Sequence " + since + " is ahead of the change feed at "
+                            + sequence + "; export the cache again");
+                }
+                if (since < oldestRetained - 1) {
+                    throw new IllegalArgumentException("Changes after sequence " + since
+                            + " are no longer retained; export the cache again");
+                }
+                for (CacheChangeEvent event : history) {
+                    if (event.getSequence() > since && !subscriber.offer(toSse(event))) {
+                        overflowed = true;
+                        break;
+                    }
+                }
+            }
+            subscribers.add(subscriber);
+        }
+        SseEmitter emitter = subscriber.emitter;
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        if (overflowed) {
+            drop(subscriber, null);
+        }
+        logger.info("Change feed subscriber registered from sequence {}, {} active", since, subscribers.size());
+        return emitter;
+    }
+
+    // Overridden in tests to observe what is sent.
+    SseEmitter createEmitter() {
+        return new SseEmitter(NO_TIMEOUT);
+    }
+
+    int subscriberCount() {
+        return subscribers.size();
+    }
+
+    private static SseEmitter.SseEventBuilder toSse(CacheChangeEvent event) {
+        return SseEmitter.event()
+                .id(String.valueOf(event.getSequence()))
+                .name(event.getType().name())
+                .data(event);
+    }
+
+    // A comment line keeps idle connections open and surfaces clients that disconnected.
+    private void sendHeartbeats() {
+        for (Subscriber subscriber : subscribers) {
+            if (!subscriber.offer(SseEmitter.event().comment("heartbeat"))) {
+                drop(subscriber, null);
+            }
+        }
+    }
+
+    private void drop(Subscriber subscriber, Throwable cause) {
+        if (!subscriber.close()) {
+            return;
+        }
+        subscribers.remove(subscriber);
+        if (cause != null) {
+            subscriber.emitter.completeWithError(cause);
+        } else {
+            subscriber.emitter.complete();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        dispatcher.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            drop(subscriber, null);
+        }
+    }
+
+    // A connected client with its own bounded queue of pending events, drained by at most one dispatcher thread.
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        // Guarded by this.
+        private final ArrayDeque<SseEmitter.SseEventBuilder> queue = new ArrayDeque<>();
+        private boolean draining;
+        private boolean closed;
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        // Returns false if the queue is full and the subscriber should be dropped.
+        private boolean offer(SseEmitter.SseEventBuilder event) {
+            synchronized (this) {
+                if (closed) {
+                    return true;
+                }
+                if (queue.size() >= subscriberQueueCapacity) {
+                    return false;
+                }
+                queue.addLast(event);
+                if (draining) {
+                    return true;
+                }
+                draining = true;
+            }
+            try {
+                dispatcher.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // The feed is shutting down.
+                synchronized (this) {
+                    draining = false;
+                }
+            }
+            return true;
+        }
+
+        private void drain() {
+            while (true) {
+                SseEmitter.SseEventBuilder event;
+                synchronized (this) {
+                    event = queue.pollFirst();
+                    if (event == null || closed) {
+                        draining = false;
+                        return;
+                    }
+                }
+                try {
+                    emitter.send(event);
+                } catch (Exception e) {
+                    // Drop subscribers that can no longer be written to.
+                    logger.warn("Dropping change feed subscriber: {}", e.getMessage());
+                    drop(this, e);
+                    return;
+                }
+            }
+        }
+
+        // Returns true only for the call that actually closed the subscriber.
+        private synchronized boolean close() {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            queue.clear();
+            return true;
+        }
+    }
+}
@@ -1,46 +1,94 @@
 package com.data.datacache.service;
 
+import com.data.datacache.exception.RepositoryUnavailableException;
+import com.data.datacache.model.CacheChangeEvent;
 import com.data.datacache.model.CacheItem;
+import com.data.datacache.model.CacheLookup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class CacheManagerService {
 
     private static final Logger logger = LoggerFactory.getLogger(CacheManagerService.class);
 
+    // Delay before retrying a failed write-back.
+    static final long WRITE_BACK_RETRY_MS = 1000;
+
     private final int maxSize;
+    private final int staleMaxSize;
+    private final int maxPendingWrites;
     private final DatabaseRepository databaseRepository;
+    private final CacheChangeFeed changeFeed;
+    private final RepositoryGuard repositoryGuard;
     private final LinkedHashMap<CacheItem, CacheItem> cache;
+    // Last values saved to the database for items that left the cache, served when the database is unavailable.
+    private final LinkedHashMap<Integer, LastKnown> lastKnown;
+    // Evicted items not yet saved to the database, keyed by id. They are the newest values and are
+    // served in place of the database until saved; failed saves stay here and are retried. Bounded by
+    // maxPendingWrites: when full, adds that would evict are refused rather than dropping a write.
+    private final LinkedHashMap<Integer, CacheItem> pendingWrites = new LinkedHashMap<>();
+    // Held for each single save and for deletes, so a save never lands after a newer save or a delete.
+    private final ReentrantLock writeBackLock = new ReentrantLock();
+    // Saves pending writes off the request threads; flushScheduled is set while a flush is queued or running.
+    private final ScheduledExecutorService writeBack = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cache-write-back");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // Guards the LRU map, which is reordered even by reads, the pending writes and the last known values.
+    private final Object lock = new Object();
+    // Concurrent mirror of the cache contents, keyed by id, for weakly consistent iteration.
+    private final ConcurrentHashMap<Integer, CacheItem> entries = new ConcurrentHashMap<>();
+    // Count of explicit removals, guarded by the lock; a database load that raced one is not cached.
+    private long removals;
 
     @Autowired
-    public CacheManagerService(DatabaseRepository databaseRepository) {
+    public CacheManagerService(DatabaseRepository databaseRepository, CacheChangeFeed changeFeed,
+                               RepositoryGuard repositoryGuard) {
         // Configurable maximum size; can be externalized to properties
         this.maxSize = 3;
+        this.staleMaxSize = maxSize * 10;
+        this.maxPendingWrites = maxSize * 10;
         this.databaseRepository = databaseRepository;
+        this.changeFeed = changeFeed;
+        this.repositoryGuard = repositoryGuard;
         // Create a LinkedHashMap in access order for LRU eviction
         this.cache = new LinkedHashMap<CacheItem, CacheItem>(maxSize, 0.75f, true) {
             @Override
             protected boolean removeEldestEntry(Map.Entry<CacheItem, CacheItem> eldest) {
                 if (size() > CacheManagerService.this.maxSize) {
-                    try {
-                        // Log and attempt to persist the evicted item to the database.
-                        logger.info("Evicting item from cache: {}", eldest.getValue());
-                        databaseRepository.save(eldest.getValue());
-                    } catch (Exception e) {
-                        // Log error while saving evicted item.
-                        logger.error("Error saving evicted item: {}", e.getMessage());
-                    }
+                    logger.info("Evicting item from cache: {}", eldest.getValue());
+                    pendingWrites.put(eldest.getKey().getId(), eldest.getValue());
+                    entries.remove(eldest.getKey().getId());
+                    changeFeed.publish(CacheChangeEvent.Type.EVICT, eldest.getValue());
                     return true;
                 }
                 return false;
             }
         };
+        this.lastKnown = new LinkedHashMap<Integer, LastKnown>(staleMaxSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, LastKnown> eldest) {
+                return size() > CacheManagerService.this.staleMaxSize;
+            }
+        };
     }
 
     // Adds a CacheItem to the cache.
@@ -49,8 +97,22 @@ public class CacheManagerService {
             throw new IllegalArgumentException("Cache item cannot be null");
         }
         try {
-            cache.put(item, item);
+            boolean hasPendingWrites;
+            synchronized (lock) {
+                if (pendingWritesFull() && wouldEvict(item)) {
+                    throw new RepositoryUnavailableException("Database write-back backlog is full ("
+                            + maxPendingWrites + " items); cannot evict to make room");
+                }
+                put(item, item);
+                hasPendingWrites = !pendingWrites.isEmpty();
+            }
             logger.info("Added to cache: {}", item);
+            if (hasPendingWrites) {
+                scheduleFlush();
+            }
+        } catch (RepositoryUnavailableException e) {
+            logger.error("Failed to add item to cache: {}", e.getMessage());
+            throw e;
         } catch (Exception e) {
             logger.error("Failed to add item to cache: {}", e.getMessage());
             throw new RuntimeException("Failed to add item to cache", e);
@@ -59,20 +121,69 @@ public class CacheManagerService {
 
     // Retrieves a CacheItem from the cache; if not present, loads it from the database.
     public CacheItem get(CacheItem item) {
+        return lookup(item).getItem();
+    }
+
+    // Retrieves a CacheItem from the cache; if not present, loads it from the database. When the
+    // database is unavailable, the last known value for the id is served and marked stale.
+    public CacheLookup lookup(CacheItem item) {
         if (item == null) {
             throw new IllegalArgumentException("Cache item cannot be null");
         }
         try {
-            CacheItem found = cache.get(item);
+            CacheItem found;
+            long removalsBeforeLoad;
+            synchronized (lock) {
+                found = cache.get(item);
+                if (found == null) {
+                    // An evicted value whose save has not reached the database yet is newer than the database.
+                    found = pendingWrites.get(item.getId());
+                }
+                removalsBeforeLoad = removals;
+            }
             if (found != null) {
                 logger.info("Found in cache: {}", found);
-                return found;
-            } else {
-                found = databaseRepository.get(item);
-                cache.put(item, found);
-                logger.info("Loaded into cache from database: {}", found);
-                return found;
+                return CacheLookup.fresh(found);
+            }
+            try {
+                // Load outside the lock so a slow database does not block other cache users.
+                found = repositoryGuard.call("get", () -> databaseRepository.get(item));
+            } catch (RepositoryUnavailableException e) {
+                CacheLookup stale = lookupStale(item);
+                if (stale == null) {
+                    throw e;
+                }
+                logger.warn("Serving stale item, database unavailable: {} ({})", stale.getItem(), e.getMessage());
+                return stale;
+            }
+            boolean hasPendingWrites;
+            synchronized (lock) {
+                // A concurrent add, or one evicted since, wins over the value loaded from the database.
+                CacheItem current = cache.get(item);
+                if (current == null) {
+                    current = pendingWrites.get(item.getId());
+                }
+                if (current != null) {
+                    logger.info("Found in cache after load: {}", current);
+                    return CacheLookup.fresh(current);
+                }
+                // A concurrent remove may have deleted what was loaded; serve it but do not cache it again.
+                // An id the database does not know is not cached either, so it never takes an LRU slot.
+                // With a full write-back backlog the value is served without evicting anything.
+                if (found != null && removals == removalsBeforeLoad && !(pendingWritesFull() && wouldEvict(item))) {
+                    put(item, found);
+                }
+                hasPendingWrites = !pendingWrites.isEmpty();
+            }
+            logger.info("Loaded from database: {}", found);
+            if (hasPendingWrites) {
+                // The database just answered, so retry any saves that failed earlier.
+                scheduleFlush();
             }
+            return CacheLookup.fresh(found);
+        } catch (RepositoryUnavailableException e) {
+            logger.error("Failed to retrieve item: {}", e.getMessage());
+            throw e;
         } catch (Exception e) {
             logger.error("Failed to retrieve item: {}", e.getMessage());
             throw new RuntimeException("Failed to retrieve item", e);
@@ -84,37 +195,225 @@ public class CacheManagerService {
         if (item == null) {
             throw new IllegalArgumentException("Cache item cannot be null");
         }
+        acquireWriteBackLock("remove");
         try {
-            if (cache.remove(item) != null) {
-                logger.info("Removed from cache: {}", item);
+            synchronized (lock) {
+                // The item is being deleted, so it must not be served stale or written back later.
+                lastKnown.remove(item.getId());
+                pendingWrites.remove(item.getId());
+                removals++;
+                if (cache.remove(item) != null) {
+                    entries.remove(item.getId());
+                    changeFeed.publish(CacheChangeEvent.Type.REMOVE, item);
+                    logger.info("Removed from cache: {}", item);
+                }
+            }
+            try {
+                repositoryGuard.run("remove", () -> databaseRepository.remove(item));
+            } finally {
+                // Loads that started before the database delete finished must not be cached either.
+                markRemoval();
             }
-            databaseRepository.remove(item);
+        } catch (RepositoryUnavailableException e) {
+            logger.error("Failed to remove item: {}", e.getMessage());
+            throw e;
         } catch (Exception e) {
             logger.error("Failed to remove item: {}", e.getMessage());
             throw new RuntimeException("Failed to remove item", e);
+        } finally {
+            writeBackLock.unlock();
         }
     }
 
     // Removes all CacheItems from both the cache and database.
     public void removeAll() {
+        acquireWriteBackLock("removeAll");
         try {
-            cache.clear();
+            synchronized (lock) {
+                lastKnown.clear();
+                pendingWrites.clear();
+                removals++;
+                clearEntries();
+            }
             logger.info("Cleared all entries from cache.");
-            databaseRepository.removeAll();
+            try {
+                repositoryGuard.run("removeAll", databaseRepository::removeAll);
+            } finally {
+                markRemoval();
+            }
+        } catch (RepositoryUnavailableException e) {
+            logger.error("Failed to remove all items: {}", e.getMessage());
+            throw e;
         } catch (Exception e) {
             logger.error("Failed to remove all items: {}", e.getMessage());
             throw new RuntimeException("Failed to remove all items", e);
+        } finally {
+            writeBackLock.unlock();
         }
     }
 
     // Clears only the internal cache (leaves database intact).
     public void clear() {
         try {
-            cache.clear();
+            synchronized (lock) {
+                // Items are only saved on eviction, so cached items may not be in the database yet. Write them
+                // back like evictions; this may briefly take the backlog past maxPendingWrites.
+                cache.values().forEach(value -> pendingWrites.put(value.getId(), value));
+                clearEntries();
+            }
             logger.info("Cache cleared, database remains intact.");
+            scheduleFlush();
         } catch (Exception e) {
             logger.error("Failed to clear cache: {}", e.getMessage());
             throw new RuntimeException("Failed to clear cache", e);
         }
     }
+
+    // Returns a weakly consistent iterator over the cached items. It never throws
+    // ConcurrentModificationException and does not block writers; items added or
+    // removed while iterating may or may not be reflected.
+    public Iterator<CacheItem> entries() {
+        return Collections.unmodifiableCollection(entries.values()).iterator();
+    }
+
+    // Must be called while holding the lock, with a non-null value. Evicted items are queued in pendingWrites.
+    private void put(CacheItem key, CacheItem value) {
+        cache.put(key, value);
+        entries.put(key.getId(), value);
+        changeFeed.publish(CacheChangeEvent.Type.ADD, value);
+    }
+
+    // Must be called while holding the lock.
+    private boolean pendingWritesFull() {
+        return pendingWrites.size() >= maxPendingWrites;
+    }
+
+    // Must be called while holding the lock.
+    private boolean wouldEvict(CacheItem key) {
+        return cache.size() >= maxSize && !cache.containsKey(key);
+    }
+
+    // Waits at most one repository timeout, the longest a single write-back save holds the lock.
+    private void acquireWriteBackLock(String operation) {
+        try {
+            if (writeBackLock.tryLock(repositoryGuard.getTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        throw new RepositoryUnavailableException("Database " + operation + " rejected: write-back still in progress");
+    }
+
+    private void markRemoval() {
+        synchronized (lock) {
+            removals++;
+        }
+    }
+
+    // Must be called while holding the lock.
+    private void clearEntries() {
+        cache.clear();
+        entries.clear();
+        changeFeed.publish(CacheChangeEvent.Type.CLEAR, null);
+    }
+
+    // Must be called while holding the lock, after the item was saved to the database.
+    private void remember(CacheItem item) {
+        lastKnown.put(item.getId(), new LastKnown(item, System.currentTimeMillis()));
+    }
+
+    private CacheLookup lookupStale(CacheItem item) {
+        LastKnown known;
+        synchronized (lock) {
+            known = lastKnown.get(item.getId());
+        }
+        if (known == null) {
+            return null;
+        }
+        long ageSeconds = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - known.since);
+        return CacheLookup.stale(known.item, ageSeconds);
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                writeBack.execute(this::flushPendingWrites);
+            } catch (RejectedExecutionException e) {
+                // Shutting down.
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    // Runs on the write-back thread. Saves pending evicted items to the database, oldest first, taking
+    // the write-back lock for one save at a time. On failure the rest stay pending and the flush is
+    // retried after WRITE_BACK_RETRY_MS.
+    private void flushPendingWrites() {
+        while (true) {
+            CacheItem next;
+            synchronized (lock) {
+                if (pendingWrites.isEmpty()) {
+                    flushScheduled.set(false);
+                    return;
+                }
+                next = pendingWrites.values().iterator().next();
+            }
+            writeBackLock.lock();
+            try {
+                synchronized (lock) {
+                    // A remove may have dropped it, or a newer value replaced it, while waiting for the lock.
+                    if (pendingWrites.get(next.getId()) != next) {
+                        continue;
+                    }
+                }
+                repositoryGuard.run("save", () -> databaseRepository.save(next));
+                synchronized (lock) {
+                    // Keep a newer value evicted while this one was being saved; CacheItem equality is by id only.
+                    if (pendingWrites.get(next.getId()) == next) {
+                        pendingWrites.remove(next.getId());
+                        // Now in the database, so it is a valid fallback while the database is unavailable.
+                        remember(next);
+                    }
+                }
+            } catch (Exception e) {
+                // Log error while saving evicted item.
+                logger.error("Error saving evicted item, will retry: {}", e.getMessage());
+                scheduleRetry();
+                return;
+            } finally {
+                writeBackLock.unlock();
+            }
+        }
+    }
+
+    private void scheduleRetry() {
+        try {
+            writeBack.schedule(this::flushPendingWrites, WRITE_BACK_RETRY_MS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down.
+            flushScheduled.set(false);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        writeBack.shutdownNow();
+        synchronized (lock) {
+            if (!pendingWrites.isEmpty()) {
+                logger.error("Shutting down with {} evicted items not saved to the database", pendingWrites.size());
+            }
+        }
+    }
+
+    // A value that left the cache and the time it was last known to be current.
+    private static final class LastKnown {
+        private final CacheItem item;
+        private final long since;
+
+        private LastKnown(CacheItem item, long since) {
+            this.item = item;
+            this.since = since;
+        }
+    }
 }
@@ -0,0 +1,171 @@
+package com.data.datacache.service;
+
+import com.data.datacache.exception.RepositoryUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Isolates callers from a slow or failing database: calls run on a bounded loader pool (bulkhead),
+// are abandoned after a timeout, and are short-circuited while the circuit breaker is open.
+@Service
+public class RepositoryGuard {
+
+    private static final Logger logger = LoggerFactory.getLogger(RepositoryGuard.class);
+
+    static final int DEFAULT_MAX_CONCURRENT_CALLS = 8;
+    static final int DEFAULT_QUEUE_CAPACITY = 16;
+    static final long DEFAULT_TIMEOUT_MS = 2000;
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    static final long DEFAULT_OPEN_DURATION_MS = 10000;
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final ThreadPoolExecutor loader;
+    private final long timeoutMs;
+    private final int failureThreshold;
+    private final long openDurationMs;
+
+    // Circuit breaker state, guarded by this.
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+
+    @Autowired
+    public RepositoryGuard(@Value("${cache.repository.max-concurrent-calls:" + DEFAULT_MAX_CONCURRENT_CALLS + "}") int maxConcurrentCalls,
+                           @Value("${cache.repository.queue-capacity:" + DEFAULT_QUEUE_CAPACITY + "}") int queueCapacity,
+                           @Value("${cache.repository.timeout-ms:" + DEFAULT_TIMEOUT_MS + "}") long timeoutMs,
+                           @Value("${cache.repository.failure-threshold:" + DEFAULT_FAILURE_THRESHOLD + "}") int failureThreshold,
+                           @Value("${cache.repository.open-duration-ms:" + DEFAULT_OPEN_DURATION_MS + "}") long openDurationMs) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.loader = new ThreadPoolExecutor(maxConcurrentCalls, maxConcurrentCalls, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "repository-loader-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.loader.allowCoreThreadTimeOut(true);
+        this.timeoutMs = timeoutMs;
+        this.failureThreshold = failureThreshold;
+        this.openDurationMs = openDurationMs;
+    }
+
+    // Runs a repository call under the bulkhead, timeout and circuit breaker.
+    public <T> T call(String operation, Callable<T> task) {
+        State admittedIn = acquirePermission();
+        if (admittedIn == null) {
+            throw new RepositoryUnavailableException("Database " + operation + " rejected: circuit breaker is open");
+        }
+        Future<T> future;
+        try {
+            future = loader.submit(task);
+        } catch (RejectedExecutionException e) {
+            // A full bulkhead says nothing about database health, so it is not counted as a failure.
+            releasePermission(admittedIn);
+            throw new RepositoryUnavailableException("Database " + operation + " rejected: loader bulkhead is full", e);
+        }
+        try {
+            T result = future.get(timeoutMs, TimeUnit.MILLISECONDS);
+            onSuccess(admittedIn);
+            return result;
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            onFailure(operation, admittedIn);
+            throw new RepositoryUnavailableException("Database " + operation + " timed out after " + timeoutMs + " ms", e);
+        } catch (ExecutionException e) {
+            onFailure(operation, admittedIn);
+            throw new RepositoryUnavailableException("Database " + operation + " failed: " + e.getCause().getMessage(),
+                    e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            releasePermission(admittedIn);
+            throw new RepositoryUnavailableException("Database " + operation + " interrupted", e);
+        }
+    }
+
+    // Runs a repository call that returns nothing under the bulkhead, timeout and circuit breaker.
+    public void run(String operation, Runnable task) {
+        call(operation, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    // Longest a single guarded call can take before it is abandoned.
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    // Closed lets every call through; open rejects until the open duration has passed, then a single
+    // half-open trial call decides whether to close again. Returns the state the call was admitted in
+    // (CLOSED, or HALF_OPEN for the trial), or null if it is rejected.
+    private synchronized State acquirePermission() {
+        if (state == State.CLOSED) {
+            return State.CLOSED;
+        }
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDurationMs) {
+            state = State.HALF_OPEN;
+            logger.info("Circuit breaker half-open, trying the database again");
+            return State.HALF_OPEN;
+        }
+        return null;
+    }
+
+    // Gives back a half-open trial that never reached the database.
+    private synchronized void releasePermission(State admittedIn) {
+        if (admittedIn == State.HALF_OPEN && state == State.HALF_OPEN) {
+            state = State.OPEN;
+        }
+    }
+
+    // Only the trial closes the breaker. A call admitted while closed that completes after the breaker
+    // opened must not skip the open duration.
+    private synchronized void onSuccess(State admittedIn) {
+        if (admittedIn == State.HALF_OPEN && state == State.HALF_OPEN) {
+            logger.info("Circuit breaker closed, database calls succeeding again");
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+        } else if (admittedIn == State.CLOSED && state == State.CLOSED) {
+            consecutiveFailures = 0;
+        }
+    }
+
+    private synchronized void onFailure(String operation, State admittedIn) {
+        if (admittedIn == State.HALF_OPEN && state == State.HALF_OPEN) {
+            logger.warn("Circuit breaker reopened after failed database {} trial", operation);
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        } else if (admittedIn == State.CLOSED && state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+            logger.warn("Circuit breaker opened after database {} failure ({} consecutive)",
+                    operation, consecutiveFailures);
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+}
@@ -1,6 +1,10 @@
 package com.data.datacache.controller;
 
+import com.data.datacache.exception.RepositoryUnavailableException;
+import com.data.datacache.exception.TooManySubscribersException;
 import com.data.datacache.model.CacheItem;
+import com.data.datacache.model.CacheLookup;
+import com.data.datacache.service.CacheChangeFeed;
 import com.data.datacache.service.CacheManagerService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.BeforeEach;
@@ -10,13 +14,20 @@ import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.Arrays;
 
 import static org.hamcrest.Matchers.containsString;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
@@ -29,6 +40,9 @@ class CacheControllerTest {
     @MockBean
     private CacheManagerService cacheManagerService;
 
+    @MockBean
+    private CacheChangeFeed cacheChangeFeed;
+
     private ObjectMapper objectMapper;
 
     @BeforeEach
@@ -67,7 +81,7 @@ class CacheControllerTest {
     void testGetSuccess() throws Exception {
         // Positive test: Successfully retrieving a CacheItem.
         CacheItem item = new CacheItem(1, "Content 1");
-        when(cacheManagerService.get(any(CacheItem.class))).thenReturn(item);
+        when(cacheManagerService.lookup(any(CacheItem.class))).thenReturn(CacheLookup.fresh(item));
 
         mockMvc.perform(post("/api/cache/get")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -82,7 +96,7 @@ class CacheControllerTest {
         // Negative test: Passing invalid input (empty JSON) to get returns 400.
         String nullPayload = "{}";
         doThrow(new IllegalArgumentException("Cache item cannot be null"))
-                .when(cacheManagerService).get(any(CacheItem.class));
+                .when(cacheManagerService).lookup(any(CacheItem.class));
 
         mockMvc.perform(post("/api/cache/get")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -155,7 +169,7 @@ class CacheControllerTest {
     void testGetServerError5xx() throws Exception {
         // Negative test: Simulate a server error on the get endpoint.
         CacheItem item = new CacheItem(1, "Content 1");
-        doThrow(new RuntimeException("Server error during get")).when(cacheManagerService).get(any(CacheItem.class));
+        doThrow(new RuntimeException("Server error during get")).when(cacheManagerService).lookup(any(CacheItem.class));
 
         mockMvc.perform(post("/api/cache/get")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -216,7 +230,7 @@ class CacheControllerTest {
         // Negative test: Sending an empty JSON for get should also result in a 400 Bad Request.
         String invalidPayload = "{}";
         doThrow(new IllegalArgumentException("Cache item cannot be null"))
-                .when(cacheManagerService).get(any(CacheItem.class));
+                .when(cacheManagerService).lookup(any(CacheItem.class));
 
         mockMvc.perform(post("/api/cache/get")
                         .contentType(MediaType.APPLICATION_JSON)
@@ -238,4 +252,144 @@ class CacheControllerTest {
                 .andExpect(status().isBadRequest())
                 .andExpect(content().string(containsString("Cache item cannot be null")));
     }
+
+    @Test
+    void testExportStreamsNdjson() throws Exception {
+        // Positive test: export writes one JSON object per line and reports the feed sequence.
+        when(cacheChangeFeed.currentSequence()).thenReturn(7L);
+        when(cacheManagerService.entries()).thenReturn(Arrays.asList(
+                new CacheItem(1, "Content 1"), new CacheItem(2, "Content 2")).iterator());
+
+        MvcResult result = mockMvc.perform(get("/api/cache/export"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Cache-Sequence", "7"))
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andExpect(content().string("{\"id\":1,\"content\":\"Content 1\"}\n"
+                        + "{\"id\":2,\"content\":\"Content 2\"}\n"));
+    }
+
+    @Test
+    void testGetServesStaleWithHeader() throws Exception {
+        // Positive test: a stale value served during a database outage carries the staleness header.
+        CacheItem item = new CacheItem(1, "Content 1");
+        when(cacheManagerService.lookup(any(CacheItem.class))).thenReturn(CacheLookup.stale(item, 42));
+
+        mockMvc.perform(post("/api/cache/get")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(item)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("X-Cache-Stale-Age", "42"))
+                .andExpect(jsonPath("$.content").value(item.getContent()));
+    }
+
+    @Test
+    void testGetFreshHasNoStaleHeader() throws Exception {
+        // Positive test: a fresh value is returned without the staleness header.
+        CacheItem item = new CacheItem(1, "Content 1");
+        when(cacheManagerService.lookup(any(CacheItem.class))).thenReturn(CacheLookup.fresh(item));
+
+        mockMvc.perform(post("/api/cache/get")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(item)))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Cache-Stale-Age"));
+    }
+
+    @Test
+    void testAddWriteBackBacklogFull503() throws Exception {
+        // Negative test: an add refused because the write-back backlog is full returns 503.
+        CacheItem item = new CacheItem(1, "Content 1");
+        doThrow(new RepositoryUnavailableException("Database write-back backlog is full (30 items); cannot evict to make room"))
+                .when(cacheManagerService).add(any(CacheItem.class));
+
+        mockMvc.perform(post("/api/cache/add")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(item)))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(content().string(containsString("backlog is full")));
+    }
+
+    @Test
+    void testGetDatabaseUnavailable503() throws Exception {
+        // Negative test: database unavailable with no last known value returns 503.
+        CacheItem item = new CacheItem(1, "Content 1");
+        doThrow(new RepositoryUnavailableException("Database get rejected: circuit breaker is open"))
+                .when(cacheManagerService).lookup(any(CacheItem.class));
+
+        mockMvc.perform(post("/api/cache/get")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(item)))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(content().string(containsString("circuit breaker is open")));
+    }
+
+    @Test
+    void testRemoveDatabaseUnavailable503() throws Exception {
+        // Negative test: database unavailable during remove returns 503.
+        CacheItem item = new CacheItem(1, "Content 1");
+        doThrow(new RepositoryUnavailableException("Database remove timed out after 2000 ms"))
+                .when(cacheManagerService).remove(any(CacheItem.class));
+
+        mockMvc.perform(delete("/api/cache/remove")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(item)))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(content().string(containsString("timed out")));
+    }
+
+    @Test
+    void testChangesResumesFromLastEventId() throws Exception {
+        // Positive test: a reconnecting client resumes after the sequence in Last-Event-ID.
+        when(cacheChangeFeed.subscribe(7L)).thenReturn(new SseEmitter());
+
+        mockMvc.perform(get("/api/cache/changes").header("Last-Event-ID", "7"))
+                .andExpect(request().asyncStarted());
+        verify(cacheChangeFeed).subscribe(7L);
+    }
+
+    @Test
+    void testChangesLastEventIdTakesPrecedenceOverSince() throws Exception {
+        // Positive test: a reconnect to the original ?since URL resumes from Last-Event-ID, not since.
+        when(cacheChangeFeed.subscribe(7L)).thenReturn(new SseEmitter());
+
+        mockMvc.perform(get("/api/cache/changes").param("since", "3").header("Last-Event-ID", "7"))
+                .andExpect(request().asyncStarted());
+        verify(cacheChangeFeed).subscribe(7L);
+    }
+
+    @Test
+    void testChangesSubscribesFromSince() throws Exception {
+        // Positive test: a first connection without Last-Event-ID starts after since.
+        when(cacheChangeFeed.subscribe(3L)).thenReturn(new SseEmitter());
+
+        mockMvc.perform(get("/api/cache/changes").param("since", "3"))
+                .andExpect(request().asyncStarted());
+        verify(cacheChangeFeed).subscribe(3L);
+    }
+
+    @Test
+    void testChangesSequenceNoLongerRetained400() throws Exception {
+        // Negative test: resuming from a sequence that is no longer retained returns 400.
+        when(cacheChangeFeed.subscribe(1L)).thenThrow(
+                new IllegalArgumentException("Changes after sequence 1 are no longer retained; export the cache again"));
+
+        mockMvc.perform(get("/api/cache/changes").param("since", "1"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string(containsString("no longer retained")));
+    }
+
+    @Test
+    void testChangesTooManySubscribers503() throws Exception {
+        // Negative test: subscribing beyond the subscriber limit returns 503.
+        when(cacheChangeFeed.subscribe(null)).thenThrow(
+                new TooManySubscribersException("Change feed already has 100 subscribers; try again later"));
+
+        mockMvc.perform(get("/api/cache/changes"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(content().string(containsString("already has 100 subscribers")));
+    }
 }
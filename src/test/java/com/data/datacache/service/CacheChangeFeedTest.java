@@ -0,0 +1,222 @@
+package com.data.datacache.service;
+
+import com.data.datacache.exception.TooManySubscribersException;
+import com.data.datacache.model.CacheChangeEvent;
+import com.data.datacache.model.CacheItem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheChangeFeedTest {
+
+    private CacheChangeFeed changeFeed;
+    private RepositoryGuard repositoryGuard;
+    private CacheManagerService cacheManagerService;
+    private SseEmitter nextEmitter;
+
+    @AfterEach
+    void tearDown() {
+        if (cacheManagerService != null) {
+            cacheManagerService.shutdown();
+        }
+        changeFeed.shutdown();
+        if (repositoryGuard != null) {
+            repositoryGuard.shutdown();
+        }
+    }
+
+    @Test
+    void testSubscriberReceivesMutationsInOrder() throws Exception {
+        // Positive test: cache mutations arrive with their sequence as id, type as name, in order.
+        changeFeed = newFeed(100, 100, 60000);
+        CacheManagerService service = newService();
+        RecordingEmitter emitter = new RecordingEmitter();
+        subscribe(emitter, null);
+
+        for (int id = 1; id <= 4; id++) {
+            service.add(new CacheItem(id, "Content " + id));
+        }
+        service.remove(new CacheItem(4, "Content 4"));
+        service.clear();
+
+        String[] names = {"ADD", "ADD", "ADD", "EVICT", "ADD", "REMOVE", "CLEAR"};
+        Integer[] itemIds = {1, 2, 3, 1, 4, 4, null};
+        for (int i = 0; i < names.length; i++) {
+            Sent sent = emitter.next();
+            assertEquals("id:" + (i + 1) + "\nevent:" + names[i] + "\ndata:", sent.header);
+            assertEquals(i + 1, sent.event.getSequence());
+            assertEquals(names[i], sent.event.getType().name());
+            assertEquals(itemIds[i], sent.event.getItem() == null ? null : sent.event.getItem().getId());
+        }
+    }
+
+    @Test
+    void testSubscribeReplaysChangesAfterSequence() throws Exception {
+        // Positive test: subscribing from a sequence replays retained changes before live ones.
+        changeFeed = newFeed(100, 100, 60000);
+        for (int id = 1; id <= 3; id++) {
+            changeFeed.publish(CacheChangeEvent.Type.ADD, new CacheItem(id, "Content " + id));
+        }
+        RecordingEmitter emitter = new RecordingEmitter();
+        subscribe(emitter, 1L);
+        changeFeed.publish(CacheChangeEvent.Type.REMOVE, new CacheItem(1, "Content 1"));
+
+        assertEquals(2, emitter.next().event.getSequence());
+        assertEquals(3, emitter.next().event.getSequence());
+        assertEquals(4, emitter.next().event.getSequence());
+    }
+
+    @Test
+    void testSubscribeRejectsSequenceNoLongerRetained() {
+        // Negative test: resuming from a sequence older than the replay history is refused.
+        changeFeed = newFeed(2, 100, 60000);
+        for (int id = 1; id <= 4; id++) {
+            changeFeed.publish(CacheChangeEvent.Type.ADD, new CacheItem(id, "Content " + id));
+        }
+        nextEmitter = new RecordingEmitter();
+        Exception exception = assertThrows(IllegalArgumentException.class, () -> changeFeed.subscribe(1L));
+        assertTrue(exception.getMessage().contains("no longer retained"), "Caller should be told to export again");
+        assertEquals(0, changeFeed.subscriberCount());
+    }
+
+    @Test
+    void testFailingSubscriberIsDropped() throws Exception {
+        // Negative test: a subscriber that can no longer be written to is removed.
+        changeFeed = newFeed(100, 100, 60000);
+        subscribe(new SseEmitter(0L) {
+            @Override
+            public void send(SseEventBuilder builder) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        }, null);
+        assertEquals(1, changeFeed.subscriberCount());
+
+        changeFeed.publish(CacheChangeEvent.Type.ADD, new CacheItem(1, "Content 1"));
+        awaitSubscriberCount(0);
+    }
+
+    @Test
+    void testSlowSubscriberIsDroppedWithoutStallingOthers() throws Exception {
+        // Negative test: a subscriber that falls behind its queue is dropped; others keep receiving.
+        changeFeed = newFeed(100, 2, 60000);
+        CountDownLatch release = new CountDownLatch(1);
+        subscribe(new SseEmitter(0L) {
+            @Override
+            public void send(SseEventBuilder builder) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, null);
+        RecordingEmitter fast = new RecordingEmitter();
+        subscribe(fast, null);
+        try {
+            for (int id = 1; id <= 5; id++) {
+                changeFeed.publish(CacheChangeEvent.Type.ADD, new CacheItem(id, "Content " + id));
+                assertEquals(id, fast.next().event.getSequence());
+            }
+            assertEquals(1, changeFeed.subscriberCount(), "Slow subscriber should have been dropped");
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void testSubscribeRejectedBeyondMaxSubscribers() {
+        // Negative test: subscriptions beyond the limit are refused until a subscriber leaves.
+        changeFeed = newFeed(100, 100, 60000, 1);
+        subscribe(new RecordingEmitter(), null);
+        nextEmitter = new RecordingEmitter();
+        assertThrows(TooManySubscribersException.class, () -> changeFeed.subscribe(null));
+        assertEquals(1, changeFeed.subscriberCount());
+    }
+
+    @Test
+    void testHeartbeatIsSent() throws Exception {
+        // Positive test: idle subscribers receive a heartbeat comment.
+        changeFeed = newFeed(100, 100, 20);
+        RecordingEmitter emitter = new RecordingEmitter();
+        subscribe(emitter, null);
+        assertEquals(":heartbeat\n\n", emitter.next().header);
+    }
+
+    private CacheChangeFeed newFeed(int replayCapacity, int queueCapacity, long heartbeatIntervalMs) {
+        return newFeed(replayCapacity, queueCapacity, heartbeatIntervalMs, 10);
+    }
+
+    private CacheChangeFeed newFeed(int replayCapacity, int queueCapacity, long heartbeatIntervalMs,
+                                    int maxSubscribers) {
+        return new CacheChangeFeed(replayCapacity, queueCapacity, heartbeatIntervalMs, maxSubscribers) {
+            @Override
+            SseEmitter createEmitter() {
+                return nextEmitter;
+            }
+        };
+    }
+
+    private CacheManagerService newService() {
+        repositoryGuard = new RepositoryGuard(1, 1, 1000, 5, 10000);
+        cacheManagerService = new CacheManagerService(new DatabaseRepository(), changeFeed, repositoryGuard);
+        return cacheManagerService;
+    }
+
+    private void subscribe(SseEmitter emitter, Long since) {
+        nextEmitter = emitter;
+        assertSame(emitter, changeFeed.subscribe(since));
+    }
+
+    private void awaitSubscriberCount(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (changeFeed.subscriberCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, changeFeed.subscriberCount());
+    }
+
+    // What a single send wrote: the SSE text before the payload and the payload itself (if any).
+    private static final class Sent {
+        private final String header;
+        private final CacheChangeEvent event;
+
+        private Sent(String header, CacheChangeEvent event) {
+            this.header = header;
+            this.event = event;
+        }
+    }
+
+    // Emitter that records what the feed sends instead of writing to a response.
+    private static class RecordingEmitter extends SseEmitter {
+        private final BlockingQueue<Sent> sent = new LinkedBlockingQueue<>();
+
+        RecordingEmitter() {
+            super(0L);
+        }
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            List<ResponseBodyEmitter.DataWithMediaType> parts = new ArrayList<>(builder.build());
+            Object first = parts.get(0).getData();
+            Object second = parts.size() > 1 ? parts.get(1).getData() : null;
+            sent.add(new Sent((String) first, second instanceof CacheChangeEvent ? (CacheChangeEvent) second : null));
+        }
+
+        Sent next() throws InterruptedException {
+            Sent next = sent.poll(5, TimeUnit.SECONDS);
+            assertNotNull(next, "Expected an event to be sent");
+            return next;
+        }
+    }
+}
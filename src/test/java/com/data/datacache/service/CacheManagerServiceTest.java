@@ -1,20 +1,48 @@
 package com.data.datacache.service;
 
+import com.data.datacache.exception.RepositoryUnavailableException;
 import com.data.datacache.model.CacheItem;
+import com.data.datacache.model.CacheLookup;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class CacheManagerServiceTest {
 
     private CacheManagerService cacheManagerService;
     private DatabaseRepository databaseRepository;
+    private CacheChangeFeed changeFeed;
+    private RepositoryGuard repositoryGuard;
+    private final List<CacheManagerService> services = new ArrayList<>();
 
     @BeforeEach
     void setUp() {
         databaseRepository = new DatabaseRepository();
-        cacheManagerService = new CacheManagerService(databaseRepository);
+        changeFeed = new CacheChangeFeed(100, 100, 60000, 10);
+        repositoryGuard = new RepositoryGuard(2, 4, 2000, 5, 10000);
+        cacheManagerService = newService(databaseRepository, repositoryGuard);
+    }
+
+    @AfterEach
+    void tearDown() {
+        services.forEach(CacheManagerService::shutdown);
+        changeFeed.shutdown();
+        repositoryGuard.shutdown();
     }
 
     @Test
@@ -101,4 +129,310 @@ class CacheManagerServiceTest {
         });
         assertEquals("Cache item cannot be null", exception.getMessage());
     }
+
+    @Test
+    void testEntriesToleratesConcurrentModification() {
+        // Positive test: iterating while the cache is mutated does not throw.
+        cacheManagerService.add(new CacheItem(1, "Content 1"));
+        cacheManagerService.add(new CacheItem(2, "Content 2"));
+        Iterator<CacheItem> entries = cacheManagerService.entries();
+        Set<Integer> seen = new HashSet<>();
+        while (entries.hasNext()) {
+            seen.add(entries.next().getId());
+            cacheManagerService.add(new CacheItem(10 + seen.size(), "Added during iteration"));
+        }
+        assertFalse(seen.isEmpty(), "Iteration should return cached items");
+    }
+
+    @Test
+    void testEntriesReflectEviction() {
+        // Positive test: evicted items are no longer enumerated.
+        for (int id = 1; id <= 4; id++) {
+            cacheManagerService.add(new CacheItem(id, "Content " + id));
+        }
+        Set<Integer> ids = new HashSet<>();
+        cacheManagerService.entries().forEachRemaining(item -> ids.add(item.getId()));
+        assertEquals(Set.of(2, 3, 4), ids, "Eldest item should have been evicted");
+    }
+
+    @Test
+    void testMutationsAdvanceChangeSequence() {
+        // Positive test: add, evict, remove and clear each publish one change.
+        for (int id = 1; id <= 4; id++) {
+            cacheManagerService.add(new CacheItem(id, "Content " + id));
+        }
+        assertEquals(5, changeFeed.currentSequence(), "Four adds and one eviction expected");
+        cacheManagerService.remove(new CacheItem(4, "Content 4"));
+        cacheManagerService.clear();
+        assertEquals(7, changeFeed.currentSequence(), "Remove and clear should each publish a change");
+    }
+
+    @Test
+    void testServesStaleWhenDatabaseUnavailable() throws Exception {
+        // Positive test: an evicted item saved to the database is served stale when the database fails.
+        InMemoryDatabaseRepository inMemoryRepository = new InMemoryDatabaseRepository();
+        CacheManagerService service = newService(inMemoryRepository, repositoryGuard);
+        for (int id = 1; id <= 4; id++) {
+            service.add(new CacheItem(id, "Content " + id));
+        }
+        awaitContent(inMemoryRepository, 1, "Content 1");
+        inMemoryRepository.down = true;
+        CacheLookup lookup = service.lookup(new CacheItem(1, null));
+        assertTrue(lookup.isStale(), "Evicted item should be served stale");
+        assertEquals("Content 1", lookup.getItem().getContent());
+    }
+
+    @Test
+    void testClearWritesBackUnsavedItems() throws Exception {
+        // Positive test: items only ever added are saved when the cache is cleared, then serve as stale fallbacks.
+        InMemoryDatabaseRepository inMemoryRepository = new InMemoryDatabaseRepository();
+        CacheManagerService service = newService(inMemoryRepository, repositoryGuard);
+        service.add(new CacheItem(1, "Content 1"));
+        service.clear();
+        awaitContent(inMemoryRepository, 1, "Content 1");
+        inMemoryRepository.down = true;
+        CacheLookup lookup = service.lookup(new CacheItem(1, null));
+        assertTrue(lookup.isStale(), "Cleared item should be served stale once saved");
+        assertEquals("Content 1", lookup.getItem().getContent());
+    }
+
+    @Test
+    void testClearWhileDatabaseDownKeepsUnsavedItems() {
+        // Positive test: a cleared item the database never received is served fresh from the write-back backlog.
+        InMemoryDatabaseRepository inMemoryRepository = new InMemoryDatabaseRepository();
+        inMemoryRepository.down = true;
+        CacheManagerService service = newService(inMemoryRepository, repositoryGuard);
+        service.add(new CacheItem(1, "Content 1"));
+        service.clear();
+        CacheLookup lookup = service.lookup(new CacheItem(1, null));
+        assertFalse(lookup.isStale(), "Unsaved item is the newest value, not a stale one");
+        assertEquals("Content 1", lookup.getItem().getContent());
+        assertTrue(inMemoryRepository.rows.isEmpty(), "Nothing should have reached the database");
+    }
+
+    @Test
+    void testDatabaseUnavailableWithoutLastKnownValue() {
+        // Negative test: with no last known value the database failure is surfaced.
+        FailingDatabaseRepository failingRepository = new FailingDatabaseRepository();
+        failingRepository.down = true;
+        CacheManagerService service = newService(failingRepository, repositoryGuard);
+        assertThrows(RepositoryUnavailableException.class, () -> service.get(new CacheItem(1, null)));
+    }
+
+    @Test
+    void testRemovedItemIsNotServedStale() {
+        // Negative test: a removed item must not be resurrected from its last known value.
+        FailingDatabaseRepository failingRepository = new FailingDatabaseRepository();
+        CacheManagerService service = newService(failingRepository, repositoryGuard);
+        service.add(new CacheItem(1, "Content 1"));
+        service.clear();
+        service.remove(new CacheItem(1, "Content 1"));
+        failingRepository.down = true;
+        assertThrows(RepositoryUnavailableException.class, () -> service.get(new CacheItem(1, null)));
+    }
+
+    @Test
+    void testConcurrentAddWinsOverDatabaseLoad() throws Exception {
+        // Positive test: a value added while a database load is in flight is not overwritten by it.
+        BlockingDatabaseRepository blockingRepository = new BlockingDatabaseRepository();
+        CacheManagerService service = newService(blockingRepository, repositoryGuard);
+        ExecutorService loader = Executors.newSingleThreadExecutor();
+        try {
+            Future<CacheItem> load = loader.submit(() -> service.get(new CacheItem(1, null)));
+            assertTrue(blockingRepository.loading.await(5, TimeUnit.SECONDS), "Load should have started");
+            service.add(new CacheItem(1, "Newer content"));
+            long sequence = changeFeed.currentSequence();
+            blockingRepository.release.countDown();
+            assertEquals("Newer content", load.get(5, TimeUnit.SECONDS).getContent());
+            assertEquals("Newer content", service.get(new CacheItem(1, null)).getContent());
+            assertEquals(sequence, changeFeed.currentSequence(), "Loaded value should not publish a second ADD");
+        } finally {
+            loader.shutdownNow();
+        }
+    }
+
+    @Test
+    void testConcurrentRemoveIsNotUndoneByDatabaseLoad() throws Exception {
+        // Negative test: a value loaded before a concurrent remove must not be cached again.
+        BlockingDatabaseRepository blockingRepository = new BlockingDatabaseRepository();
+        CacheManagerService service = newService(blockingRepository, repositoryGuard);
+        ExecutorService loader = Executors.newSingleThreadExecutor();
+        try {
+            Future<CacheItem> load = loader.submit(() -> service.get(new CacheItem(1, null)));
+            assertTrue(blockingRepository.loading.await(5, TimeUnit.SECONDS), "Load should have started");
+            service.remove(new CacheItem(1, null));
+            blockingRepository.release.countDown();
+            load.get(5, TimeUnit.SECONDS);
+            assertFalse(service.entries().hasNext(), "Removed item should not be cached again");
+        } finally {
+            loader.shutdownNow();
+        }
+    }
+
+    @Test
+    void testEvictionWhileBreakerOpenIsNotLost() throws Exception {
+        // Positive test: an eviction whose save is rejected by the open breaker is served and saved after recovery.
+        InMemoryDatabaseRepository inMemoryRepository = new InMemoryDatabaseRepository();
+        inMemoryRepository.rows.put(1, new CacheItem(1, "Old content"));
+        RepositoryGuard fastGuard = new RepositoryGuard(2, 4, 1000, 1, 50);
+        try {
+            CacheManagerService service = newService(inMemoryRepository, fastGuard);
+            inMemoryRepository.down = true;
+            assertThrows(RepositoryUnavailableException.class, () -> service.get(new CacheItem(9, null)));
+            assertEquals(RepositoryGuard.State.OPEN, fastGuard.getState());
+
+            service.add(new CacheItem(1, "New content"));
+            for (int id = 2; id <= 4; id++) {
+                service.add(new CacheItem(id, "Content " + id));
+            }
+            assertEquals("Old content", inMemoryRepository.rows.get(1).getContent(), "Save should have been rejected");
+
+            inMemoryRepository.down = false;
+            Thread.sleep(100);
+            CacheLookup lookup = service.lookup(new CacheItem(1, null));
+            assertFalse(lookup.isStale());
+            assertEquals("New content", lookup.getItem().getContent(), "Pending value must win over the database");
+
+            // A successful load closes the breaker and retries the pending save in the background.
+            service.get(new CacheItem(5, null));
+            awaitContent(inMemoryRepository, 1, "New content");
+        } finally {
+            fastGuard.shutdown();
+        }
+    }
+
+    @Test
+    void testAddDoesNotWaitForWriteBack() {
+        // Positive test: saving an evicted item happens off the caller's thread.
+        InMemoryDatabaseRepository inMemoryRepository = new InMemoryDatabaseRepository();
+        inMemoryRepository.saveDelayMs = 1500;
+        CacheManagerService service = newService(inMemoryRepository, repositoryGuard);
+        for (int id = 1; id <= 3; id++) {
+            service.add(new CacheItem(id, "Content " + id));
+        }
+        long start = System.currentTimeMillis();
+        service.add(new CacheItem(4, "Content 4"));
+        assertTrue(System.currentTimeMillis() - start < 1000, "Add should not wait for the slow save");
+        assertEquals("Content 1", service.get(new CacheItem(1, null)).getContent(), "Pending value should be served");
+    }
+
+    @Test
+    void testAddRefusedWhenWriteBackBacklogFull() {
+        // Negative test: with the write-back backlog full, an add that would evict is refused instead of losing a write.
+        InMemoryDatabaseRepository inMemoryRepository = new InMemoryDatabaseRepository();
+        RepositoryGuard openGuard = new RepositoryGuard(2, 4, 1000, 1, 60000);
+        try {
+            CacheManagerService service = newService(inMemoryRepository, openGuard);
+            inMemoryRepository.down = true;
+            assertThrows(RepositoryUnavailableException.class, () -> service.get(new CacheItem(99, null)));
+            // Three cached items plus thirty evictions waiting to be saved.
+            for (int id = 1; id <= 33; id++) {
+                service.add(new CacheItem(id, "Content " + id));
+            }
+            Exception exception = assertThrows(RepositoryUnavailableException.class,
+                    () -> service.add(new CacheItem(34, "Content 34")));
+            assertTrue(exception.getMessage().contains("backlog is full"), "Full backlog should be reported");
+            service.add(new CacheItem(33, "Updated content 33"));
+            assertEquals("Content 1", service.get(new CacheItem(1, null)).getContent(), "Pending value should be served");
+            assertTrue(inMemoryRepository.rows.isEmpty(), "Nothing should have reached the database");
+        } finally {
+            openGuard.shutdown();
+        }
+    }
+
+    private CacheManagerService newService(DatabaseRepository repository, RepositoryGuard guard) {
+        CacheManagerService service = new CacheManagerService(repository, changeFeed, guard);
+        services.add(service);
+        return service;
+    }
+
+    private static void awaitContent(InMemoryDatabaseRepository repository, int id, String content)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            CacheItem row = repository.rows.get(id);
+            if (row != null && content.equals(row.getContent())) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("Database row " + id + " should have become '" + content + "'");
+    }
+
+    // Repository backed by a map whose operations all fail while the database is marked down.
+    private static class InMemoryDatabaseRepository extends DatabaseRepository {
+        final Map<Integer, CacheItem> rows = new ConcurrentHashMap<>();
+        volatile boolean down;
+        volatile long saveDelayMs;
+
+        @Override
+        public void save(CacheItem item) {
+            checkUp();
+            if (saveDelayMs > 0) {
+                try {
+                    Thread.sleep(saveDelayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            rows.put(item.getId(), item);
+        }
+
+        @Override
+        public CacheItem get(CacheItem item) {
+            checkUp();
+            return rows.getOrDefault(item.getId(), item);
+        }
+
+        private void checkUp() {
+            if (down) {
+                throw new IllegalStateException("Database is down");
+            }
+        }
+    }
+
+    @Test
+    void testNullDatabaseLoadIsNotCached() {
+        // Negative test: an id unknown to the database is not cached and publishes no change.
+        DatabaseRepository emptyRepository = new DatabaseRepository() {
+            @Override
+            public CacheItem get(CacheItem item) {
+                return null;
+            }
+        };
+        CacheManagerService service = newService(emptyRepository, repositoryGuard);
+        assertNull(service.get(new CacheItem(1, null)));
+        assertFalse(service.entries().hasNext(), "Null load should not take a cache slot");
+        assertEquals(0, changeFeed.currentSequence(), "Null load should not publish ADD or EVICT");
+    }
+
+    // Repository whose first read blocks until released, to interleave a concurrent write.
+    private static class BlockingDatabaseRepository extends DatabaseRepository {
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public CacheItem get(CacheItem item) {
+            loading.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new CacheItem(item.getId(), "Database content");
+        }
+    }
+
+    // Repository whose reads fail while the database is marked down.
+    private static class FailingDatabaseRepository extends DatabaseRepository {
+        volatile boolean down;
+
+        @Override
+        public CacheItem get(CacheItem item) {
+            if (down) {
+                throw new IllegalStateException("Database is down");
+            }
+            return super.get(item);
+        }
+    }
 }
@@ -0,0 +1,123 @@
+package com.data.datacache.service;
+
+import com.data.datacache.exception.RepositoryUnavailableException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RepositoryGuardTest {
+
+    private RepositoryGuard repositoryGuard;
+
+    @AfterEach
+    void tearDown() {
+        repositoryGuard.shutdown();
+    }
+
+    @Test
+    void testCallReturnsResult() {
+        // Positive test: a healthy call returns its result and keeps the breaker closed.
+        repositoryGuard = new RepositoryGuard(RepositoryGuard.DEFAULT_MAX_CONCURRENT_CALLS,
+                RepositoryGuard.DEFAULT_QUEUE_CAPACITY, RepositoryGuard.DEFAULT_TIMEOUT_MS,
+                RepositoryGuard.DEFAULT_FAILURE_THRESHOLD, RepositoryGuard.DEFAULT_OPEN_DURATION_MS);
+        assertEquals("ok", repositoryGuard.call("get", () -> "ok"));
+        assertEquals(RepositoryGuard.State.CLOSED, repositoryGuard.getState());
+    }
+
+    @Test
+    void testCallTimesOut() {
+        // Negative test: a call slower than the timeout is abandoned.
+        repositoryGuard = new RepositoryGuard(1, 1, 50, 5, 10000);
+        Exception exception = assertThrows(RepositoryUnavailableException.class,
+                () -> repositoryGuard.call("get", () -> {
+                    Thread.sleep(5000);
+                    return "late";
+                }));
+        assertTrue(exception.getMessage().contains("timed out"), "Timeout should be reported");
+    }
+
+    @Test
+    void testBreakerOpensAfterConsecutiveFailures() {
+        // Negative test: the breaker opens at the failure threshold and then rejects without calling.
+        repositoryGuard = new RepositoryGuard(1, 1, 1000, 2, 10000);
+        for (int i = 0; i < 2; i++) {
+            assertThrows(RepositoryUnavailableException.class, () -> repositoryGuard.call("get", () -> {
+                throw new IllegalStateException("Database is down");
+            }));
+        }
+        assertEquals(RepositoryGuard.State.OPEN, repositoryGuard.getState());
+        Exception exception = assertThrows(RepositoryUnavailableException.class,
+                () -> repositoryGuard.call("get", () -> "ok"));
+        assertTrue(exception.getMessage().contains("circuit breaker is open"), "Open breaker should reject");
+    }
+
+    @Test
+    void testBreakerClosesAfterSuccessfulTrial() throws Exception {
+        // Positive test: after the open duration a successful trial call closes the breaker.
+        repositoryGuard = new RepositoryGuard(1, 1, 1000, 1, 10);
+        assertThrows(RepositoryUnavailableException.class, () -> repositoryGuard.call("get", () -> {
+            throw new IllegalStateException("Database is down");
+        }));
+        Thread.sleep(50);
+        assertEquals("ok", repositoryGuard.call("get", () -> "ok"));
+        assertEquals(RepositoryGuard.State.CLOSED, repositoryGuard.getState());
+    }
+
+    @Test
+    void testLateSuccessDoesNotCloseOpenBreaker() throws Exception {
+        // Negative test: a call admitted while closed that succeeds after the breaker opened leaves it open.
+        repositoryGuard = new RepositoryGuard(2, 1, 5000, 1, 10000);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> slowCall = callers.submit(() -> repositoryGuard.call("get", () -> {
+                started.countDown();
+                release.await();
+                return "late";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS), "Slow call should have started");
+            assertThrows(RepositoryUnavailableException.class, () -> repositoryGuard.call("get", () -> {
+                throw new IllegalStateException("Database is down");
+            }));
+            assertEquals(RepositoryGuard.State.OPEN, repositoryGuard.getState());
+            release.countDown();
+            assertEquals("late", slowCall.get(5, TimeUnit.SECONDS));
+            assertEquals(RepositoryGuard.State.OPEN, repositoryGuard.getState());
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void testBulkheadRejectsWhenFull() throws Exception {
+        // Negative test: calls beyond the loader pool and queue are rejected immediately.
+        repositoryGuard = new RepositoryGuard(1, 1, 5000, 5, 10000);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                callers.submit(() -> repositoryGuard.call("get", () -> {
+                    release.await();
+                    return "ok";
+                }));
+            }
+            Thread.sleep(200);
+            Exception exception = assertThrows(RepositoryUnavailableException.class,
+                    () -> repositoryGuard.call("get", () -> "ok"));
+            assertTrue(exception.getMessage().contains("bulkhead is full"), "Full bulkhead should reject");
+            assertEquals(RepositoryGuard.State.CLOSED, repositoryGuard.getState());
+        } finally {
+            release.countDown();
+            callers.shutdownNow();
+        }
+    }
+}